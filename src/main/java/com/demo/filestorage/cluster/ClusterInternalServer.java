@@ -0,0 +1,67 @@
+package com.demo.filestorage.cluster;
+
+import java.net.URI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.client.ReactorResourceFactory;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.stereotype.Component;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Serwer nasłuchujący na porcie z {@code storage.cluster.self-url}. Obsługuje wyłącznie wewnętrzne API klastra,
+ * które {@link ClusterSecurityFilter} ukrywa na publicznym porcie aplikacji.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.cluster.enabled", havingValue = "true")
+public class ClusterInternalServer implements SmartLifecycle {
+
+  private final HttpHandler httpHandler;
+  private final ReactorResourceFactory resourceFactory;
+  private final int port;
+  private volatile DisposableServer server;
+  private static final Logger logger = LoggerFactory.getLogger(ClusterInternalServer.class);
+
+  public ClusterInternalServer(HttpHandler httpHandler, ReactorResourceFactory resourceFactory,
+      ClusterProperties properties) {
+    this.httpHandler = httpHandler;
+    this.resourceFactory = resourceFactory;
+    this.port = internalPort(properties);
+  }
+
+  static int internalPort(ClusterProperties properties) {
+    int port = URI.create(properties.selfUrl()).getPort();
+    if (port == -1) {
+      throw new IllegalStateException("storage.cluster.self-url must contain an explicit port: "
+          + properties.selfUrl());
+    }
+    return port;
+  }
+
+  @Override
+  public void start() {
+    server = HttpServer.create()
+        .runOn(resourceFactory.getLoopResources())
+        .port(port)
+        .handle(new ReactorHttpHandlerAdapter(httpHandler))
+        .bindNow();
+    logger.info("Cluster API listening on port {}", port);
+  }
+
+  @Override
+  public void stop() {
+    if (server != null) {
+      server.disposeNow();
+      server = null;
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return server != null;
+  }
+}
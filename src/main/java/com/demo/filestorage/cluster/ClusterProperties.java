@@ -0,0 +1,22 @@
+package com.demo.filestorage.cluster;
+
+import java.time.Duration;
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties("storage.cluster")
+public record ClusterProperties(
+    @DefaultValue("false") boolean enabled,
+    @DefaultValue("0") int nodeId,
+    String selfUrl,
+    String secret,
+    @DefaultValue Map<Integer, String> nodes,
+    @DefaultValue("2") int replicationFactor,
+    @DefaultValue("128") int virtualNodes,
+    @DefaultValue("5s") Duration requestTimeout,
+    @DefaultValue("5m") Duration transferTimeout,
+    @DefaultValue("1m") Duration rebalanceInterval
+) {
+
+}
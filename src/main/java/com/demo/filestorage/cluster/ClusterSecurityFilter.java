@@ -0,0 +1,55 @@
+package com.demo.filestorage.cluster;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Wewnętrzne API klastra jest dostępne tylko na porcie klastra i tylko z nagłówkiem {@value #SECRET_HEADER}.
+ * Port klastra nie obsługuje publicznego API.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.cluster.enabled", havingValue = "true")
+public class ClusterSecurityFilter implements WebFilter {
+
+  static final String SECRET_HEADER = "X-Cluster-Secret";
+  static final String INTERNAL_PATH = "/api/v1/internal/";
+
+  private final int internalPort;
+  private final byte[] secret;
+
+  public ClusterSecurityFilter(ClusterProperties properties) {
+    this.internalPort = ClusterInternalServer.internalPort(properties);
+    this.secret = properties.secret().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    ServerHttpRequest request = exchange.getRequest();
+    boolean internalPath = request.getPath().value().startsWith(INTERNAL_PATH);
+    InetSocketAddress localAddress = request.getLocalAddress();
+    boolean onInternalPort = localAddress != null && localAddress.getPort() == internalPort;
+    if (internalPath != onInternalPort) {
+      exchange.getResponse().setStatusCode(HttpStatus.NOT_FOUND);
+      return exchange.getResponse().setComplete();
+    }
+    if (internalPath && !hasValidSecret(request)) {
+      exchange.getResponse().setStatusCode(HttpStatus.FORBIDDEN);
+      return exchange.getResponse().setComplete();
+    }
+    return chain.filter(exchange);
+  }
+
+  private boolean hasValidSecret(ServerHttpRequest request) {
+    String header = request.getHeaders().getFirst(SECRET_HEADER);
+    return header != null && MessageDigest.isEqual(secret, header.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,467 @@
+package com.demo.filestorage.cluster;
+
+import com.demo.filestorage.model.FileMetadata;
+import com.demo.filestorage.repository.FileMetadataRepository;
+import com.demo.filestorage.service.StorageService;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+@Service
+public class ClusterService implements SmartInitializingSingleton {
+
+  // Każdy węzeł przydziela identyfikatory z własnego zakresu, więc id jest unikalne w całym klastrze.
+  static final long ID_RANGE = 1L << 40;
+  static final long MAX_NODE_ID = Long.MAX_VALUE / ID_RANGE - 1;
+  private static final int BUFFER_SIZE = 8192;
+  private static final int REBALANCE_PAGE_SIZE = 100;
+  private static final int REBALANCE_CONCURRENCY = 4;
+
+  private final ClusterProperties properties;
+  private final ConsistentHashRing ring;
+  private final Map<Integer, String> members = new ConcurrentHashMap<>();
+  private final FileMetadataRepository repository;
+  private final StorageService storageService;
+  private final R2dbcEntityTemplate template;
+  private final DatabaseClient databaseClient;
+  private final WebClient webClient;
+  private final AtomicBoolean rebalancing = new AtomicBoolean();
+  private final AtomicBoolean rebalancePending = new AtomicBoolean();
+  private final AtomicBoolean retryPending = new AtomicBoolean();
+  private final Set<Long> failedFiles = ConcurrentHashMap.newKeySet();
+  private Disposable retries;
+  private static final Logger logger = LoggerFactory.getLogger(ClusterService.class);
+
+  public ClusterService(ClusterProperties properties, FileMetadataRepository repository, StorageService storageService,
+      R2dbcEntityTemplate template, DatabaseClient databaseClient, WebClient.Builder webClientBuilder) {
+    this.properties = properties;
+    this.repository = repository;
+    this.storageService = storageService;
+    this.template = template;
+    this.databaseClient = databaseClient;
+    this.webClient = webClientBuilder.clone()
+        .defaultHeader(ClusterSecurityFilter.SECRET_HEADER, properties.secret())
+        .build();
+    this.ring = new ConsistentHashRing(properties.virtualNodes());
+    if (properties.enabled()) {
+      if (properties.nodeId() < 1 || properties.nodeId() > MAX_NODE_ID) {
+        throw new IllegalStateException("storage.cluster.node-id must be between 1 and " + MAX_NODE_ID
+            + " when cluster mode is enabled, got " + properties.nodeId());
+      }
+      if (properties.selfUrl() == null || properties.selfUrl().isBlank()) {
+        throw new IllegalStateException("storage.cluster.self-url is required when cluster mode is enabled");
+      }
+      if (properties.secret() == null || properties.secret().isBlank()) {
+        throw new IllegalStateException("storage.cluster.secret is required when cluster mode is enabled");
+      }
+      addMember(properties.nodeId(), properties.selfUrl());
+      properties.nodes().forEach(this::addMember);
+    }
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    if (!isEnabled()) {
+      return;
+    }
+    // Zakres id ustawiamy przed startem serwera, aby żaden upload nie dostał id spoza zakresu węzła. Przy trwałej
+    // bazie kontynuujemy od największego id już nadanego w tym zakresie. Składnia RESTART WITH jest specyficzna dla H2.
+    long firstId = properties.nodeId() * ID_RANGE + 1;
+    long lastId = firstId + ID_RANGE - 1;
+    long nextId = databaseClient.sql("SELECT COALESCE(MAX(id), 0) FROM files WHERE id BETWEEN :firstId AND :lastId")
+        .bind("firstId", firstId)
+        .bind("lastId", lastId)
+        .map(row -> row.get(0, Long.class))
+        .one()
+        .map(maxId -> Math.max(firstId, maxId + 1))
+        .block();
+    databaseClient.sql("ALTER TABLE files ALTER COLUMN id RESTART WITH " + nextId)
+        .then()
+        .block();
+    logger.info("Node {} assigns ids starting from {}", properties.nodeId(), nextId);
+  }
+
+  public boolean isEnabled() {
+    return properties.enabled();
+  }
+
+  public Map<Integer, String> nodes() {
+    return new TreeMap<>(members);
+  }
+
+  public List<String> owners(String checksum) {
+    return ring.owners(checksum, properties.replicationFactor());
+  }
+
+  public Mono<FileMetadata> store(FileMetadata metadata, ByteBuffer content) {
+    return store(metadata, () -> storageService.store(metadata.checksum(), content.duplicate()),
+        () -> Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(content.duplicate())));
+  }
+
+  public Mono<FileMetadata> store(FileMetadata metadata, InputStream content) {
+    // Strumień jest przewijany przed każdym odczytem i przesyłany do węzłów kawałkami, bez kopiowania na stertę.
+    return store(metadata, () -> storageService.store(metadata.checksum(), rewind(content)),
+        () -> DataBufferUtils.readInputStream(() -> rewind(content), DefaultDataBufferFactory.sharedInstance,
+            BUFFER_SIZE));
+  }
+
+  public Mono<FileMetadata> coordinate(FileMetadata metadata, ByteBuffer content) {
+    return coordinate(metadata, () -> storageService.store(metadata.checksum(), content.duplicate()),
+        () -> Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(content.duplicate())));
+  }
+
+  private Mono<FileMetadata> store(FileMetadata metadata, Runnable storeLocally, Supplier<Flux<DataBuffer>> body) {
+    List<String> owners = owners(metadata.checksum());
+    if (owners.contains(properties.selfUrl())) {
+      return coordinate(metadata, storeLocally, body);
+    }
+    // Upload trafia tylko do właściciela głównego. Po przekroczeniu czasu odpowiedzi nie wiemy, czy plik został
+    // zapisany, więc wysłanie go do kolejnego właściciela mogłoby utworzyć duplikat pod innym id.
+    String primary = owners.getFirst();
+    logger.info("Forwarding file {} to its primary owner {}", metadata.fileName(), primary);
+    return forward(primary, metadata, body.get())
+        .doOnError(error -> logger.warn("Failed to forward file {} to {}", metadata.fileName(), primary, error));
+  }
+
+  private Mono<FileMetadata> coordinate(FileMetadata metadata, Runnable storeLocally,
+      Supplier<Flux<DataBuffer>> body) {
+    storeLocally.run();
+    logger.info("Storing metadata for file: {}", metadata.fileName());
+    return repository.save(metadata)
+        .flatMap(saved -> Flux.fromIterable(owners(saved.checksum()))
+            .filter(owner -> !owner.equals(properties.selfUrl()))
+            .concatMap(owner -> replicateTo(owner, saved, body.get())
+                .onErrorResume(error -> {
+                  logger.warn("Failed to replicate file {} to {}, it will be retried", saved.fileName(), owner,
+                      error);
+                  failedFiles.add(saved.id());
+                  return Mono.empty();
+                }))
+            .then(Mono.just(saved)));
+  }
+
+  private InputStream rewind(InputStream content) {
+    try {
+      content.reset();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return StreamUtils.nonClosing(content);
+  }
+
+  public Mono<FileMetadata> storeReplica(FileMetadata metadata, ByteBuffer content) {
+    logger.info("Storing replica of file {} with id {}", metadata.fileName(), metadata.id());
+    // Blob zapisujemy przed metadanymi: wiersz w bazie oznacza, że plik jest kompletny, a rebalancing na tej podstawie
+    // usuwa kopię źródłową. Ponowiony zapis istniejącej repliki również nadpisuje blob, więc go odtwarza.
+    return Mono.<Void>fromRunnable(() -> storageService.store(metadata.checksum(), content))
+        .subscribeOn(Schedulers.boundedElastic())
+        .then(template.insert(metadata))
+        .onErrorResume(DuplicateKeyException.class, error -> repository.findById(metadata.id())
+            .flatMap(existing -> existing.checksum().equals(metadata.checksum())
+                ? Mono.just(existing)
+                : deleteBlobIfUnused(metadata.checksum())
+                    .then(Mono.<FileMetadata>error(new IllegalStateException("Id " + metadata.id()
+                        + " is already used by file " + existing.fileName() + " with a different checksum")))));
+  }
+
+  public Mono<FileMetadata> findRemoteById(Long id) {
+    // Id wskazuje węzeł, który zapisał plik. Pozostałe węzły pytamy równolegle tylko wtedy, gdy plik został
+    // przeniesiony przez rebalancing albo ten węzeł nie odpowiada.
+    String origin = members.get(originNodeId(id));
+    Mono<FileMetadata> fromOrigin = origin == null || origin.equals(properties.selfUrl())
+        ? Mono.empty()
+        : lookup(origin, id);
+    return fromOrigin.switchIfEmpty(Mono.defer(() -> Flux.fromIterable(peers())
+        .filter(node -> !node.equals(origin))
+        .flatMap(node -> lookup(node, id))
+        .next()));
+  }
+
+  static int originNodeId(Long id) {
+    return id == null || id < 1 ? -1 : (int) ((id - 1) / ID_RANGE);
+  }
+
+  private Mono<FileMetadata> lookup(String node, Long id) {
+    return fetchById(node, id)
+        .onErrorResume(error -> {
+          logger.warn("Failed to read file {} from {}: {}", id, node, error.toString());
+          return Mono.empty();
+        });
+  }
+
+  public Map<Integer, String> join(int nodeId, String url) {
+    if (addMember(nodeId, url)) {
+      logger.info("Node {} joined the cluster: {}", nodeId, url);
+    } else {
+      logger.info("Node {} rejoined the cluster: {}", nodeId, url);
+    }
+    // Węzeł mógł zostać zrestartowany z pustą bazą, więc rebalancing uruchamiamy przy każdym zgłoszeniu.
+    requestRebalance();
+    return nodes();
+  }
+
+  public Map<Integer, String> remove(int nodeId, boolean propagate) {
+    if (nodeId == properties.nodeId()) {
+      throw new IllegalStateException("Node " + nodeId + " cannot remove itself from the cluster");
+    }
+    List<String> notified = peers();
+    String url = removeMember(nodeId);
+    if (url != null) {
+      logger.info("Node {} removed from the cluster: {}", nodeId, url);
+      requestRebalance();
+    }
+    if (propagate) {
+      Flux.fromIterable(notified)
+          .filter(node -> !node.equals(url))
+          .flatMap(node -> notifyRemoval(node, nodeId))
+          .subscribe();
+    }
+    return nodes();
+  }
+
+  private synchronized String removeMember(int nodeId) {
+    String url = members.remove(nodeId);
+    if (url != null) {
+      ring.remove(url);
+    }
+    return url;
+  }
+
+  private synchronized boolean addMember(int nodeId, String url) {
+    String known = members.get(nodeId);
+    if (known != null && !known.equals(url)) {
+      throw new IllegalStateException("Node id " + nodeId + " is already used by " + known);
+    }
+    members.forEach((id, memberUrl) -> {
+      if (id != nodeId && memberUrl.equals(url)) {
+        throw new IllegalStateException("Node " + url + " is already registered with id " + id);
+      }
+    });
+    members.put(nodeId, url);
+    return ring.add(url);
+  }
+
+  private boolean mergeMember(int nodeId, String url) {
+    try {
+      return addMember(nodeId, url);
+    } catch (IllegalStateException e) {
+      logger.error("Ignoring cluster member {} ({}): {}", nodeId, url, e.getMessage());
+      return false;
+    }
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void onApplicationReady() {
+    if (!isEnabled()) {
+      return;
+    }
+    // Zgłaszamy się do znanych węzłów, a następnie do węzłów, o których dowiedzieliśmy się z ich odpowiedzi.
+    Set<String> announced = ConcurrentHashMap.newKeySet();
+    Flux.fromIterable(peers())
+        .filter(announced::add)
+        .expand(node -> announce(node)
+            .flatMapIterable(Map::entrySet)
+            .filter(member -> mergeMember(member.getKey(), member.getValue()))
+            .map(Map.Entry::getValue)
+            .filter(url -> !url.equals(properties.selfUrl()) && announced.add(url)))
+        .then()
+        .doFinally(signal -> requestRebalance())
+        .subscribe(null, error -> logger.error("Failed to join the cluster", error));
+    retries = Flux.interval(properties.rebalanceInterval())
+        .filter(tick -> !failedFiles.isEmpty())
+        .subscribe(tick -> requestRetry());
+  }
+
+  @PreDestroy
+  public void stopRetries() {
+    if (retries != null) {
+      retries.dispose();
+    }
+  }
+
+  public void requestRebalance() {
+    rebalancePending.set(true);
+    runPendingRebalance();
+  }
+
+  private void requestRetry() {
+    retryPending.set(true);
+    runPendingRebalance();
+  }
+
+  private void runPendingRebalance() {
+    // Flagi są ustawiane przed CAS, więc zgłoszenie w trakcie trwającego rebalancingu nie zostanie zgubione.
+    if ((!rebalancePending.get() && !retryPending.get()) || !rebalancing.compareAndSet(false, true)) {
+      return;
+    }
+    // Pełny przegląd (po zmianie składu klastra) obejmuje też pliki czekające na ponowienie.
+    retryPending.set(false);
+    Mono<Void> work = rebalancePending.getAndSet(false) ? rebalance() : retryFailedFiles();
+    work.doFinally(signal -> {
+          rebalancing.set(false);
+          runPendingRebalance();
+        })
+        .subscribe(null, error -> logger.error("Rebalancing failed", error));
+  }
+
+  private List<String> peers() {
+    return ring.nodes().stream()
+        .filter(node -> !node.equals(properties.selfUrl()))
+        .toList();
+  }
+
+  private Mono<Void> rebalance() {
+    logger.info("Rebalancing files across nodes {}", ring.nodes());
+    // Pliki czytamy stronami po id, więc cała tabela nigdy nie trafia do pamięci, a usuwanie przeniesionych
+    // wierszy nie przesuwa kolejnych stron.
+    return filesAfter(0L)
+        .expand(page -> page.size() < REBALANCE_PAGE_SIZE ? Mono.empty() : filesAfter(page.getLast().id()))
+        .concatMap(page -> Flux.fromIterable(page).flatMap(this::rebalanceFile, REBALANCE_CONCURRENCY), 1)
+        .then()
+        .doOnSuccess(ignored -> logger.info("Rebalancing finished"));
+  }
+
+  private Mono<List<FileMetadata>> filesAfter(long id) {
+    return repository.findByIdGreaterThanOrderByIdAsc(id, Limit.of(REBALANCE_PAGE_SIZE)).collectList();
+  }
+
+  private Mono<Void> retryFailedFiles() {
+    List<Long> ids = List.copyOf(failedFiles);
+    failedFiles.removeAll(ids);
+    logger.info("Retrying replication of {} files", ids.size());
+    return Flux.fromIterable(ids)
+        .concatMap(repository::findById)
+        .flatMap(this::rebalanceFile, REBALANCE_CONCURRENCY)
+        .then();
+  }
+
+  private Mono<Void> rebalanceFile(FileMetadata metadata) {
+    List<String> owners = owners(metadata.checksum());
+    Mono<Void> cleanup = owners.contains(properties.selfUrl())
+        ? Mono.empty()
+        : repository.delete(metadata)
+            .then(deleteBlobIfUnused(metadata.checksum()))
+            .doOnSuccess(ignored -> logger.info("Moved file {} to {}", metadata.fileName(), owners));
+    return Flux.fromIterable(owners)
+        .filter(owner -> !owner.equals(properties.selfUrl()))
+        .concatMap(owner -> fetchById(owner, metadata.id())
+            .filter(remote -> remote.checksum().equals(metadata.checksum()))
+            .hasElement()
+            .flatMap(present -> present ? Mono.<Void>empty() : replicateTo(owner, metadata, load(metadata))))
+        .then(cleanup)
+        .onErrorResume(error -> {
+          logger.warn("Failed to rebalance file {}, it will be retried", metadata.fileName(), error);
+          failedFiles.add(metadata.id());
+          return Mono.empty();
+        });
+  }
+
+  private Mono<Void> deleteBlobIfUnused(String checksum) {
+    // Pliki o tej samej treści współdzielą blob, więc usuwamy go dopiero po ostatnim wierszu z tą sumą.
+    return repository.existsByChecksum(checksum)
+        .filter(used -> !used)
+        .flatMap(unused -> Mono.<Void>fromRunnable(() -> storageService.delete(checksum))
+            .subscribeOn(Schedulers.boundedElastic()));
+  }
+
+  private Flux<DataBuffer> load(FileMetadata metadata) {
+    return DataBufferUtils.readInputStream(() -> storageService.load(metadata.checksum()),
+            DefaultDataBufferFactory.sharedInstance, BUFFER_SIZE)
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  private Mono<FileMetadata> fetchById(String node, Long id) {
+    return webClient.get()
+        .uri(node + "/api/v1/internal/cluster/files/{id}", id)
+        .retrieve()
+        .bodyToMono(FileMetadata.class)
+        .timeout(properties.requestTimeout());
+  }
+
+  private Mono<FileMetadata> forward(String owner, FileMetadata metadata, Flux<DataBuffer> body) {
+    return webClient.post()
+        .uri(owner + "/api/v1/internal/cluster/blobs?fileName={fileName}&checksum={checksum}",
+            metadata.fileName(), metadata.checksum())
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .body(BodyInserters.fromDataBuffers(body))
+        .retrieve()
+        .bodyToMono(FileMetadata.class)
+        .timeout(properties.transferTimeout());
+  }
+
+  private Mono<Void> replicateTo(String owner, FileMetadata metadata, Publisher<DataBuffer> body) {
+    return webClient.post()
+        .uri(owner + "/api/v1/internal/cluster/blobs?fileName={fileName}&checksum={checksum}&id={id}&size={size}",
+            metadata.fileName(), metadata.checksum(), metadata.id(), metadata.size())
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .body(BodyInserters.fromDataBuffers(body))
+        .retrieve()
+        .toBodilessEntity()
+        .timeout(properties.transferTimeout())
+        .then();
+  }
+
+  private Mono<Void> notifyRemoval(String node, int nodeId) {
+    return webClient.delete()
+        .uri(node + "/api/v1/internal/cluster/nodes/{nodeId}?propagate=false", nodeId)
+        .retrieve()
+        .toBodilessEntity()
+        .timeout(properties.requestTimeout())
+        .then()
+        .onErrorResume(error -> {
+          logger.warn("Failed to notify {} about removal of node {}: {}", node, nodeId, error.toString());
+          return Mono.empty();
+        });
+  }
+
+  private Mono<Map<Integer, String>> announce(String node) {
+    return webClient.post()
+        .uri(node + "/api/v1/internal/cluster/nodes?nodeId={nodeId}&url={url}", properties.nodeId(),
+            properties.selfUrl())
+        .retrieve()
+        .bodyToMono(new ParameterizedTypeReference<Map<Integer, String>>() {
+        })
+        .timeout(properties.requestTimeout())
+        .onErrorResume(WebClientResponseException.Conflict.class, error -> {
+          logger.error("Node {} rejected us: {}", node, error.getMessage());
+          return Mono.empty();
+        })
+        .onErrorResume(error -> {
+          logger.warn("Node {} is not reachable, it will learn about us when it joins", node);
+          return Mono.empty();
+        });
+  }
+}
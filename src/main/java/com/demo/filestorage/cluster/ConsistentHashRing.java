@@ -0,0 +1,91 @@
+package com.demo.filestorage.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Pierścień spójnego haszowania przypisujący klucze (np. sumy kontrolne) do węzłów klastra.
+ * Każdy węzeł zajmuje {@code virtualNodes} punktów na pierścieniu, dzięki czemu dołączenie
+ * lub odejście węzła przenosi tylko niewielką część kluczy.
+ */
+public class ConsistentHashRing {
+
+  private final int virtualNodes;
+  private final TreeMap<Long, String> ring = new TreeMap<>();
+  private final Set<String> nodes = new LinkedHashSet<>();
+
+  public ConsistentHashRing(int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+    }
+    this.virtualNodes = virtualNodes;
+  }
+
+  public synchronized boolean add(String node) {
+    if (!nodes.add(node)) {
+      return false;
+    }
+    for (int i = 0; i < virtualNodes; i++) {
+      ring.put(hash(node + "#" + i), node);
+    }
+    return true;
+  }
+
+  public synchronized boolean remove(String node) {
+    if (!nodes.remove(node)) {
+      return false;
+    }
+    for (int i = 0; i < virtualNodes; i++) {
+      ring.remove(hash(node + "#" + i), node);
+    }
+    return true;
+  }
+
+  public synchronized List<String> nodes() {
+    return List.copyOf(nodes);
+  }
+
+  /**
+   * Zwraca węzły odpowiedzialne za klucz: pierwszy to właściciel główny, kolejne to repliki.
+   */
+  public synchronized List<String> owners(String key, int count) {
+    int wanted = Math.min(count, nodes.size());
+    Set<String> owners = new LinkedHashSet<>();
+    if (wanted <= 0) {
+      return List.of();
+    }
+    long keyHash = hash(key);
+    SortedMap<Long, String> tail = ring.tailMap(keyHash);
+    for (String node : tail.values()) {
+      owners.add(node);
+      if (owners.size() == wanted) {
+        return new ArrayList<>(owners);
+      }
+    }
+    for (String node : ring.headMap(keyHash).values()) {
+      owners.add(node);
+      if (owners.size() == wanted) {
+        break;
+      }
+    }
+    return new ArrayList<>(owners);
+  }
+
+  private long hash(String value) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      byte[] bytes = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+      return ByteBuffer.wrap(bytes).getLong();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 not available", e);
+    }
+  }
+}
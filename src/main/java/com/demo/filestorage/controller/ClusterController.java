@@ -0,0 +1,100 @@
+package com.demo.filestorage.controller;
+
+import com.demo.filestorage.cluster.ClusterService;
+import com.demo.filestorage.model.FileMetadata;
+import com.demo.filestorage.repository.FileMetadataRepository;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@RestController
+@RequestMapping("/api/v1/internal/cluster")
+@ConditionalOnProperty(name = "storage.cluster.enabled", havingValue = "true")
+public class ClusterController {
+
+  private final ClusterService clusterService;
+  private final FileMetadataRepository repository;
+
+  public ClusterController(ClusterService clusterService, FileMetadataRepository repository) {
+    this.clusterService = clusterService;
+    this.repository = repository;
+  }
+
+  @PostMapping(value = "/blobs", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public Mono<FileMetadata> storeBlob(@RequestParam String fileName, @RequestParam String checksum,
+      @RequestParam(required = false) Long id, @RequestParam(required = false) Long size,
+      @RequestBody(required = false) Flux<DataBuffer> content) {
+    return DataBufferUtils.join(content)
+        .defaultIfEmpty(DefaultDataBufferFactory.sharedInstance.wrap(new byte[0]))
+        .flatMap(dataBuffer -> {
+          byte[] fileBytes = new byte[dataBuffer.readableByteCount()];
+          dataBuffer.read(fileBytes);
+          DataBufferUtils.release(dataBuffer);
+          if (!checksum.equals(sha256(fileBytes))) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Content of file " + fileName + " does not match checksum " + checksum));
+          }
+          long fileSize = size != null ? size : fileBytes.length;
+          FileMetadata metadata = new FileMetadata(id, fileName, checksum, fileSize);
+          return id == null
+              ? clusterService.coordinate(metadata, ByteBuffer.wrap(fileBytes))
+              : clusterService.storeReplica(metadata, ByteBuffer.wrap(fileBytes));
+        })
+        .onErrorMap(IllegalStateException.class, this::conflict);
+  }
+
+  @GetMapping("/files/{id}")
+  public Mono<FileMetadata> getLocalFileById(@PathVariable Long id) {
+    return repository.findById(id);
+  }
+
+  @PostMapping("/nodes")
+  public Mono<Map<Integer, String>> join(@RequestParam int nodeId, @RequestParam String url) {
+    return Mono.fromCallable(() -> clusterService.join(nodeId, url))
+        .onErrorMap(IllegalStateException.class, this::conflict);
+  }
+
+  @DeleteMapping("/nodes/{nodeId}")
+  public Mono<Map<Integer, String>> remove(@PathVariable int nodeId,
+      @RequestParam(defaultValue = "true") boolean propagate) {
+    return Mono.fromCallable(() -> clusterService.remove(nodeId, propagate))
+        .onErrorMap(IllegalStateException.class, this::conflict);
+  }
+
+  @GetMapping("/nodes")
+  public Map<Integer, String> getNodes() {
+    return clusterService.nodes();
+  }
+
+  private String sha256(byte[] content) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private ResponseStatusException conflict(IllegalStateException e) {
+    return new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e);
+  }
+
+}
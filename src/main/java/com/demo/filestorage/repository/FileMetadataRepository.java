@@ -2,7 +2,9 @@ package com.demo.filestorage.repository;
 
 
 import com.demo.filestorage.model.FileMetadata;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 
@@ -10,4 +12,8 @@ public interface FileMetadataRepository extends ReactiveCrudRepository<FileMetad
 
   Mono<FileMetadata> findByFileName(String fileName);
 
+  Mono<Boolean> existsByChecksum(String checksum);
+
+  Flux<FileMetadata> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
 }
@@ -1,5 +1,6 @@
 package com.demo.filestorage.service;
 
+import com.demo.filestorage.cluster.ClusterService;
 import com.demo.filestorage.model.FileMetadata;
 import com.demo.filestorage.repository.FileMetadataRepository;
 import java.io.InputStream;
@@ -17,11 +18,14 @@ public class FileService {
 
   private final FileMetadataRepository repository;
   private final StorageService storageService;
+  private final ClusterService clusterService;
   private static final Logger logger = LoggerFactory.getLogger(FileService.class);
 
-  public FileService(FileMetadataRepository repository, StorageService storageService) {
+  public FileService(FileMetadataRepository repository, StorageService storageService,
+      ClusterService clusterService) {
     this.repository = repository;
     this.storageService = storageService;
+    this.clusterService = clusterService;
   }
 
 
@@ -34,7 +38,10 @@ public class FileService {
       String checksumHex = bytesToHex(checksum);
       long size = fileContent.remaining();
       FileMetadata metadata = new FileMetadata(null, fileName, checksumHex, size);
-      storageService.store(fileName, fileContent);
+      if (clusterService.isEnabled()) {
+        return clusterService.store(metadata, fileContent);
+      }
+      storageService.store(checksumHex, fileContent);
       logger.info("Storing metadata for file: {}", fileName);
       return repository.save(metadata)
           .doOnSuccess(savedMetadata -> logger.info("Successfully saved metadata for file: {}", fileName))
@@ -50,6 +57,10 @@ public class FileService {
   }
 
   public Mono<FileMetadata> getFileById(Long id) {
+    if (clusterService.isEnabled()) {
+      return repository.findById(id)
+          .switchIfEmpty(Mono.defer(() -> clusterService.findRemoteById(id)));
+    }
     return repository.findById(id);
   }
 
@@ -86,7 +97,10 @@ public class FileService {
       String checksumHex = bytesToHex(digest.digest());
       FileMetadata metadata = new FileMetadata(null, fileName, checksumHex, size);
       fileContent.reset();
-      storageService.store(fileName, fileContent);
+      if (clusterService.isEnabled()) {
+        return clusterService.store(metadata, fileContent);
+      }
+      storageService.store(checksumHex, fileContent);
 
       logger.info("Storing metadata for file: {}", fileName);
 
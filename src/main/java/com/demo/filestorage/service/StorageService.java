@@ -3,10 +3,15 @@ package com.demo.filestorage.service;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
+// Bloby są adresowane sumą kontrolną SHA-256, a nie nazwą pliku, która nie jest unikalna.
 public interface StorageService {
 
-  void store(String fileName, ByteBuffer content);
+  void store(String checksum, ByteBuffer content);
 
-  void store(String fileName, InputStream content);
+  void store(String checksum, InputStream content);
+
+  InputStream load(String checksum);
+
+  void delete(String checksum);
 
 }
@@ -1,27 +1,98 @@
 package com.demo.filestorage.service;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
 public class StorageServiceImpl implements StorageService {
 
+  private final Path directory;
   private static final Logger logger = LoggerFactory.getLogger(StorageServiceImpl.class);
 
+  public StorageServiceImpl(@Value("${storage.directory}") Path directory) {
+    this.directory = directory;
+  }
+
   @Override
-  public void store(String fileName, ByteBuffer fileContent) {
-    logger.info("Storing file locally: {}", fileName);
+  public void store(String checksum, ByteBuffer fileContent) {
+    logger.info("Storing blob locally: {}", checksum);
+    write(checksum, tempFile -> {
+      try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+        ByteBuffer content = fileContent.duplicate();
+        while (content.hasRemaining()) {
+          channel.write(content);
+        }
+      }
+    });
+    logger.info("Successfully stored blob: {}", checksum);
+  }
 
-    //logic
+  @Override
+  public void store(String checksum, InputStream content) {
+    logger.info("Storing blob locally: {}", checksum);
+    write(checksum, tempFile -> Files.copy(content, tempFile, StandardCopyOption.REPLACE_EXISTING));
+    logger.info("Successfully stored blob: {}", checksum);
+  }
 
-    logger.info("Successfully stored file: {}", fileName);
+  @Override
+  public InputStream load(String checksum) {
+    logger.info("Loading blob locally: {}", checksum);
+    try {
+      return Files.newInputStream(resolve(checksum));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   @Override
-  public void store(String fileName, InputStream content) {
+  public void delete(String checksum) {
+    logger.info("Deleting blob locally: {}", checksum);
+    try {
+      Files.deleteIfExists(resolve(checksum));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    logger.info("Successfully deleted blob: {}", checksum);
+  }
+
+  private void write(String checksum, BlobWriter writer) {
+    // Blob trafia najpierw do pliku tymczasowego i jest podmieniany atomowo, więc nigdy nie jest widoczny w połowie.
+    Path target = resolve(checksum);
+    try {
+      Files.createDirectories(directory);
+      Path tempFile = Files.createTempFile(directory, checksum, ".tmp");
+      try {
+        writer.write(tempFile);
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Path resolve(String checksum) {
+    if (!checksum.matches("[0-9A-Za-z]+")) {
+      throw new IllegalArgumentException("Invalid blob checksum: " + checksum);
+    }
+    return directory.resolve(checksum);
+  }
+
+  @FunctionalInterface
+  private interface BlobWriter {
 
+    void write(Path tempFile) throws IOException;
   }
 }
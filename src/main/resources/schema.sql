@@ -1,4 +1,4 @@
-CREATE TABLE files
+CREATE TABLE IF NOT EXISTS files
 (
     id        BIGINT AUTO_INCREMENT PRIMARY KEY,
     file_name VARCHAR(255) NOT NULL,
@@ -0,0 +1,170 @@
+package com.demo.filestorage.cluster;
+
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+
+import com.demo.filestorage.DemoFileStorageApplication;
+import com.demo.filestorage.model.FileMetadata;
+import com.demo.filestorage.repository.FileMetadataRepository;
+import com.demo.filestorage.service.FileService;
+import com.demo.filestorage.service.StorageService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.util.TestSocketUtils;
+import reactor.test.StepVerifier;
+
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ClusterReplicationTest {
+
+  private static final int NODE1_CLUSTER_PORT = TestSocketUtils.findAvailableTcpPort();
+  private static final int NODE2_CLUSTER_PORT = TestSocketUtils.findAvailableTcpPort();
+  private static final String NODE1_URL = "http://localhost:" + NODE1_CLUSTER_PORT;
+  private static final String NODE2_URL = "http://localhost:" + NODE2_CLUSTER_PORT;
+
+  private static ConfigurableApplicationContext node2;
+
+  @Autowired
+  private FileMetadataRepository repository;
+
+  @Autowired
+  private FileService fileService;
+
+  @Autowired
+  private ClusterService clusterService;
+
+  @MockitoSpyBean
+  private StorageService storageService;
+
+  private FileMetadataRepository node2Repository;
+
+  @DynamicPropertySource
+  static void clusterProperties(DynamicPropertyRegistry registry) {
+    registry.add("spring.r2dbc.url", () -> "r2dbc:h2:mem:///cluster-replication-node1");
+    registry.add("storage.directory", () -> "target/cluster-replication-node1");
+    registry.add("storage.cluster.enabled", () -> "true");
+    registry.add("storage.cluster.node-id", () -> "1");
+    registry.add("storage.cluster.self-url", () -> NODE1_URL);
+    registry.add("storage.cluster.secret", () -> "test-secret");
+    registry.add("storage.cluster.nodes.2", () -> NODE2_URL);
+    registry.add("storage.cluster.replication-factor", () -> "2");
+    registry.add("storage.cluster.rebalance-interval", () -> "1s");
+  }
+
+  @BeforeAll
+  static void startNode2() {
+    node2 = new SpringApplicationBuilder(DemoFileStorageApplication.class).run(
+        "--server.port=0",
+        "--spring.r2dbc.url=r2dbc:h2:mem:///cluster-replication-node2",
+        "--storage.directory=target/cluster-replication-node2",
+        "--storage.cluster.enabled=true",
+        "--storage.cluster.node-id=2",
+        "--storage.cluster.self-url=" + NODE2_URL,
+        "--storage.cluster.secret=test-secret",
+        "--storage.cluster.nodes.1=" + NODE1_URL,
+        "--storage.cluster.replication-factor=2",
+        "--storage.cluster.rebalance-interval=1s");
+  }
+
+  @AfterAll
+  static void stopNode2() {
+    node2.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    node2Repository = node2.getBean(FileMetadataRepository.class);
+    repository.deleteAll().block(); // Czyszczenie baz obu węzłów przed każdym testem
+    node2Repository.deleteAll().block();
+  }
+
+  @Test
+  void testWriteReachesSecondOwner() throws IOException {
+    String content = "replicated content";
+
+    FileMetadata metadata = fileService.processFile("replicated.txt",
+        ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))).block();
+
+    assert metadata != null;
+    StepVerifier.create(node2Repository.findById(metadata.id()))
+        .expectNext(metadata)
+        .verifyComplete();
+    try (InputStream blob = node2.getBean(StorageService.class).load(metadata.checksum())) {
+      assert new String(blob.readAllBytes(), StandardCharsets.UTF_8).equals(content);
+    }
+  }
+
+  @Test
+  void testFailedReplicationIsRetried() throws NoSuchAlgorithmException {
+    String content = "retried content";
+    // Pierwsza replika na węźle 1 kończy się błędem zapisu, kolejna próba zapisuje plik
+    doThrow(new UncheckedIOException(new IOException("Disk full")))
+        .doCallRealMethod()
+        .when(storageService).store(eq(checksum(content)), any(ByteBuffer.class));
+
+    FileMetadata metadata = node2.getBean(FileService.class).processFile("retried.txt",
+        ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))).block();
+
+    assert metadata != null;
+    StepVerifier.create(repository.findById(metadata.id()))
+        .verifyComplete();
+    await().atMost(Duration.ofSeconds(10))
+        .until(() -> Boolean.TRUE.equals(repository.existsById(metadata.id()).block()));
+    StepVerifier.create(repository.findById(metadata.id()))
+        .expectNext(metadata)
+        .verifyComplete();
+  }
+
+  @Test
+  void testReplicaIsNotAcknowledgedWhenStoreFails() throws NoSuchAlgorithmException {
+    String content = "failing content";
+    FileMetadata replica = new FileMetadata(2 * ClusterService.ID_RANGE + 1, "failing.txt", checksum(content),
+        (long) content.length());
+    doThrow(new UncheckedIOException(new IOException("Disk full")))
+        .when(storageService).store(eq(replica.checksum()), any(ByteBuffer.class));
+
+    StepVerifier.create(clusterService.storeReplica(replica,
+            ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))))
+        .expectError(UncheckedIOException.class)
+        .verify();
+    StepVerifier.create(repository.findById(replica.id()))
+        .verifyComplete();
+
+    // Ponowiona replikacja zapisuje plik, zamiast uznać go za obecny na podstawie metadanych
+    doCallRealMethod().when(storageService).store(eq(replica.checksum()), any(ByteBuffer.class));
+    StepVerifier.create(clusterService.storeReplica(replica,
+            ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))))
+        .expectNext(replica)
+        .verifyComplete();
+    StepVerifier.create(repository.findById(replica.id()))
+        .expectNext(replica)
+        .verifyComplete();
+  }
+
+  private String checksum(String content) throws NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+  }
+}
@@ -0,0 +1,263 @@
+package com.demo.filestorage.cluster;
+
+import static org.awaitility.Awaitility.await;
+
+import com.demo.filestorage.DemoFileStorageApplication;
+import com.demo.filestorage.model.FileMetadata;
+import com.demo.filestorage.repository.FileMetadataRepository;
+import com.demo.filestorage.service.FileService;
+import com.demo.filestorage.service.StorageService;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.TestSocketUtils;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ClusterServiceTest {
+
+  private static final int NODE1_CLUSTER_PORT = TestSocketUtils.findAvailableTcpPort();
+  private static final int NODE2_CLUSTER_PORT = TestSocketUtils.findAvailableTcpPort();
+  private static final int NODE3_CLUSTER_PORT = TestSocketUtils.findAvailableTcpPort();
+  private static final String NODE1_URL = "http://localhost:" + NODE1_CLUSTER_PORT;
+  private static final String NODE2_URL = "http://localhost:" + NODE2_CLUSTER_PORT;
+  private static final String NODE3_URL = "http://localhost:" + NODE3_CLUSTER_PORT;
+
+  private static ConfigurableApplicationContext node2;
+  private static ConfigurableApplicationContext node3;
+
+  @Autowired
+  private FileMetadataRepository repository;
+
+  @Autowired
+  private FileService fileService;
+
+  @Autowired
+  private ClusterService clusterService;
+
+  private FileMetadataRepository node2Repository;
+
+  @DynamicPropertySource
+  static void clusterProperties(DynamicPropertyRegistry registry) {
+    registry.add("spring.r2dbc.url", () -> "r2dbc:h2:mem:///cluster-service-node1");
+    registry.add("storage.directory", () -> "target/cluster-service-node1");
+    registry.add("storage.cluster.enabled", () -> "true");
+    registry.add("storage.cluster.node-id", () -> "1");
+    registry.add("storage.cluster.self-url", () -> NODE1_URL);
+    registry.add("storage.cluster.secret", () -> "test-secret");
+    registry.add("storage.cluster.nodes.2", () -> NODE2_URL);
+    registry.add("storage.cluster.replication-factor", () -> "1");
+  }
+
+  @BeforeAll
+  static void startNode2() {
+    node2 = startNode(2, NODE2_URL, "--storage.cluster.nodes.1=" + NODE1_URL);
+  }
+
+  @AfterAll
+  static void stopNodes() {
+    if (node3 != null) {
+      node3.close();
+    }
+    node2.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    node2Repository = node2.getBean(FileMetadataRepository.class);
+    repository.deleteAll().block(); // Czyszczenie baz obu węzłów przed każdym testem
+    node2Repository.deleteAll().block();
+  }
+
+  @Test
+  void testIdsComeFromNodeRange() throws NoSuchAlgorithmException {
+    String content = contentOwnedBy(NODE1_URL);
+
+    StepVerifier.create(fileService.processFile("local.txt", ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))))
+        .assertNext(metadata -> {
+          assert metadata.id() > ClusterService.ID_RANGE;
+          assert ClusterService.originNodeId(metadata.id()) == 1;
+        })
+        .verifyComplete();
+  }
+
+  @Test
+  void testIdSequenceContinuesAfterRestart() throws NoSuchAlgorithmException {
+    // Wiersze, które przetrwały restart węzła: jeden z zakresu węzła 1, drugi z zakresu węzła 5
+    clusterService.storeReplica(new FileMetadata(ClusterService.ID_RANGE + 1000, "old.txt", "checksum1", 7L),
+        ByteBuffer.allocate(0)).block();
+    clusterService.storeReplica(new FileMetadata(5 * ClusterService.ID_RANGE + 1, "other.txt", "checksum2", 7L),
+        ByteBuffer.allocate(0)).block();
+    clusterService.afterSingletonsInstantiated();
+    String content = contentOwnedBy(NODE1_URL);
+
+    StepVerifier.create(fileService.processFile("new.txt", ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))))
+        .assertNext(metadata -> {
+          assert metadata.id() == ClusterService.ID_RANGE + 1001;
+        })
+        .verifyComplete();
+  }
+
+  @Test
+  void testUploadForwardedToOwner() throws NoSuchAlgorithmException {
+    String content = contentOwnedBy(NODE2_URL);
+
+    FileMetadata metadata = fileService.processFile("forwarded.txt",
+        ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))).block();
+
+    assert metadata != null;
+    assert metadata.checksum().equals(checksum(content));
+    assert ClusterService.originNodeId(metadata.id()) == 2;
+    StepVerifier.create(node2Repository.findById(metadata.id()))
+        .expectNext(metadata)
+        .verifyComplete();
+    StepVerifier.create(repository.findById(metadata.id()))
+        .verifyComplete();
+  }
+
+  @Test
+  void testInputStreamUploadForwardedToOwner() throws NoSuchAlgorithmException {
+    String content = contentOwnedBy(NODE2_URL);
+
+    FileMetadata metadata = fileService.processFile("streamed.txt",
+        new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))).block();
+
+    assert metadata != null;
+    assert metadata.size() == content.length();
+    StepVerifier.create(node2Repository.findByFileName("streamed.txt"))
+        .expectNext(metadata)
+        .verifyComplete();
+  }
+
+  @Test
+  void testGetFileByIdReadsFromOwner() throws NoSuchAlgorithmException {
+    String content = contentOwnedBy(NODE2_URL);
+    FileMetadata metadata = fileService.processFile("remote.txt",
+        ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))).block();
+
+    StepVerifier.create(fileService.getFileById(metadata.id()))
+        .expectNext(metadata)
+        .verifyComplete();
+    StepVerifier.create(fileService.getFileById(2 * ClusterService.ID_RANGE + 999))
+        .verifyComplete();
+  }
+
+  @Test
+  void testStoreReplicaIsIdempotent() {
+    FileMetadata replica = new FileMetadata(5 * ClusterService.ID_RANGE + 1, "replica.txt", "checksum1", 7L);
+    ByteBuffer content = ByteBuffer.wrap("replica".getBytes(StandardCharsets.UTF_8));
+
+    // Dwa równoległe zapisy tej samej repliki, np. z rebalancingu i z replikacji przy uploadzie
+    StepVerifier.create(Mono.zip(clusterService.storeReplica(replica, content.duplicate()),
+            clusterService.storeReplica(replica, content.duplicate())))
+        .assertNext(result -> {
+          assert result.getT1().equals(replica);
+          assert result.getT2().equals(replica);
+        })
+        .verifyComplete();
+    StepVerifier.create(repository.count())
+        .expectNext(1L)
+        .verifyComplete();
+  }
+
+  @Test
+  void testStoreReplicaRejectsDifferentChecksum() {
+    FileMetadata replica = new FileMetadata(5 * ClusterService.ID_RANGE + 2, "replica.txt", "checksum1", 7L);
+    FileMetadata conflicting = new FileMetadata(replica.id(), "other.txt", "checksum2", 5L);
+    clusterService.storeReplica(replica, ByteBuffer.allocate(0)).block();
+
+    StepVerifier.create(clusterService.storeReplica(conflicting, ByteBuffer.allocate(0)))
+        .expectError(IllegalStateException.class)
+        .verify();
+    StepVerifier.create(repository.findById(replica.id()))
+        .expectNext(replica)
+        .verifyComplete();
+  }
+
+  @Test
+  void testRebalanceAfterJoin() throws NoSuchAlgorithmException, IOException {
+    ConsistentHashRing ringAfterJoin = new ConsistentHashRing(128);
+    List.of(NODE1_URL, NODE2_URL, NODE3_URL).forEach(ringAfterJoin::add);
+    String content = null;
+    for (int i = 0; content == null; i++) {
+      String candidate = "content-" + i;
+      String checksum = checksum(candidate);
+      if (clusterService.owners(checksum).equals(List.of(NODE1_URL))
+          && ringAfterJoin.owners(checksum, 1).equals(List.of(NODE3_URL))) {
+        content = candidate;
+      }
+    }
+    FileMetadata metadata = fileService.processFile("moved.txt",
+        ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8))).block();
+
+    // Węzeł 3 zna tylko węzeł 1, o węźle 2 dowiaduje się z odpowiedzi na zgłoszenie
+    node3 = startNode(3, NODE3_URL, "--storage.cluster.nodes.1=" + NODE1_URL);
+    FileMetadataRepository node3Repository = node3.getBean(FileMetadataRepository.class);
+
+    Path node1Blob = Path.of("target/cluster-service-node1", metadata.checksum());
+    await().atMost(Duration.ofSeconds(10))
+        .until(() -> Boolean.FALSE.equals(repository.existsById(metadata.id()).block()) && Files.notExists(node1Blob));
+    StepVerifier.create(node3Repository.findById(metadata.id()))
+        .expectNext(metadata)
+        .verifyComplete();
+    try (InputStream blob = node3.getBean(StorageService.class).load(metadata.checksum())) {
+      assert new String(blob.readAllBytes(), StandardCharsets.UTF_8).equals(content);
+    }
+    StepVerifier.create(fileService.getFileById(metadata.id()))
+        .expectNext(metadata)
+        .verifyComplete();
+    assert node2.getBean(ClusterService.class).nodes().containsValue(NODE3_URL);
+  }
+
+  private static ConfigurableApplicationContext startNode(int nodeId, String selfUrl, String... args) {
+    List<String> properties = new ArrayList<>(List.of(
+        "--server.port=0",
+        "--spring.r2dbc.url=r2dbc:h2:mem:///cluster-service-node" + nodeId,
+        "--storage.directory=target/cluster-service-node" + nodeId,
+        "--storage.cluster.enabled=true",
+        "--storage.cluster.node-id=" + nodeId,
+        "--storage.cluster.self-url=" + selfUrl,
+        "--storage.cluster.secret=test-secret",
+        "--storage.cluster.replication-factor=1"));
+    properties.addAll(List.of(args));
+    return new SpringApplicationBuilder(DemoFileStorageApplication.class).run(properties.toArray(String[]::new));
+  }
+
+  private String contentOwnedBy(String owner) throws NoSuchAlgorithmException {
+    for (int i = 0; ; i++) {
+      String content = "content-" + i;
+      if (clusterService.owners(checksum(content)).equals(List.of(owner))) {
+        return content;
+      }
+    }
+  }
+
+  private String checksum(String content) throws NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+}
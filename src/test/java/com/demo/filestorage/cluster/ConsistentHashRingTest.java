@@ -0,0 +1,67 @@
+package com.demo.filestorage.cluster;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+
+  private ConsistentHashRing ring;
+
+  @BeforeEach
+  void setUp() {
+    ring = new ConsistentHashRing(128);
+    ring.add("http://localhost:8081");
+    ring.add("http://localhost:8082");
+    ring.add("http://localhost:8083");
+  }
+
+  @Test
+  void testOwnersAreDistinctAndStable() {
+    List<String> owners = ring.owners("checksum1", 2);
+
+    assert owners.size() == 2;
+    assert !owners.get(0).equals(owners.get(1));
+    assert owners.equals(ring.owners("checksum1", 2));
+  }
+
+  @Test
+  void testOwnersLimitedByNodeCount() {
+    assert ring.owners("checksum1", 5).size() == 3;
+    assert new ConsistentHashRing(128).owners("checksum1", 2).isEmpty();
+  }
+
+  @Test
+  void testAddingNodeMovesOnlyPartOfKeys() {
+    Map<String, String> before = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      before.put("checksum" + i, ring.owners("checksum" + i, 1).getFirst());
+    }
+
+    ring.add("http://localhost:8084");
+
+    int moved = 0;
+    for (Map.Entry<String, String> entry : before.entrySet()) {
+      String owner = ring.owners(entry.getKey(), 1).getFirst();
+      if (!owner.equals(entry.getValue())) {
+        assert owner.equals("http://localhost:8084"); // Klucze trafiają tylko do nowego węzła
+        moved++;
+      }
+    }
+    assert moved > 0;
+    assert moved < 500;
+  }
+
+  @Test
+  void testRemovingNodeReassignsItsKeys() {
+    ring.remove("http://localhost:8082");
+
+    assert ring.nodes().size() == 2;
+    for (int i = 0; i < 100; i++) {
+      assert !ring.owners("checksum" + i, 2).contains("http://localhost:8082");
+    }
+  }
+
+}
@@ -0,0 +1,203 @@
+package com.demo.filestorage.controller;
+
+import static org.awaitility.Awaitility.await;
+
+import com.demo.filestorage.DemoFileStorageApplication;
+import com.demo.filestorage.cluster.ClusterService;
+import com.demo.filestorage.model.FileMetadata;
+import com.demo.filestorage.repository.FileMetadataRepository;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.TestSocketUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ClusterControllerTest {
+
+  private static final int NODE1_CLUSTER_PORT = TestSocketUtils.findAvailableTcpPort();
+  private static final int NODE2_CLUSTER_PORT = TestSocketUtils.findAvailableTcpPort();
+  private static final String NODE1_URL = "http://localhost:" + NODE1_CLUSTER_PORT;
+  private static final String NODE2_URL = "http://localhost:" + NODE2_CLUSTER_PORT;
+
+  private static ConfigurableApplicationContext node2;
+
+  @Autowired
+  private WebTestClient webTestClient;
+
+  @Autowired
+  private FileMetadataRepository repository;
+
+  private WebTestClient node2Client;
+
+  private WebTestClient clusterClient;
+
+  @DynamicPropertySource
+  static void clusterProperties(DynamicPropertyRegistry registry) {
+    registry.add("spring.r2dbc.url", () -> "r2dbc:h2:mem:///cluster-controller-node1");
+    registry.add("storage.directory", () -> "target/cluster-controller-node1");
+    registry.add("storage.cluster.enabled", () -> "true");
+    registry.add("storage.cluster.node-id", () -> "1");
+    registry.add("storage.cluster.self-url", () -> NODE1_URL);
+    registry.add("storage.cluster.secret", () -> "test-secret");
+    registry.add("storage.cluster.nodes.2", () -> NODE2_URL);
+  }
+
+  @BeforeAll
+  static void startNode2() {
+    node2 = new SpringApplicationBuilder(DemoFileStorageApplication.class).run(
+        "--server.port=0",
+        "--spring.r2dbc.url=r2dbc:h2:mem:///cluster-controller-node2",
+        "--storage.directory=target/cluster-controller-node2",
+        "--storage.cluster.enabled=true",
+        "--storage.cluster.node-id=2",
+        "--storage.cluster.self-url=" + NODE2_URL,
+        "--storage.cluster.secret=test-secret",
+        "--storage.cluster.nodes.1=" + NODE1_URL);
+  }
+
+  @AfterAll
+  static void stopNode2() {
+    node2.close();
+  }
+
+  @BeforeEach
+  void setUp() {
+    repository.deleteAll().block();
+    node2.getBean(FileMetadataRepository.class).deleteAll().block();
+    int node2Port = ((WebServerApplicationContext) node2).getWebServer().getPort();
+    node2Client = WebTestClient.bindToServer().baseUrl("http://localhost:" + node2Port).build();
+    clusterClient = WebTestClient.bindToServer().baseUrl(NODE1_URL).build();
+  }
+
+  @Test
+  void testFileUploadedToOneNodeIsReadableThroughTheOther() {
+    MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+    body.add("files", new ByteArrayResource("Sample content".getBytes()) {
+      @Override
+      public String getFilename() {
+        return "test.txt";
+      }
+    });
+
+    FileMetadata uploaded = webTestClient.post()
+        .uri("/api/v1/files/upload")
+        .contentType(MediaType.MULTIPART_FORM_DATA)
+        .bodyValue(body)
+        .exchange()
+        .expectStatus().isOk()
+        .expectBodyList(FileMetadata.class)
+        .hasSize(1)
+        .returnResult()
+        .getResponseBody()
+        .getFirst();
+
+    node2Client.get()
+        .uri("/api/v1/files/" + uploaded.id())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(FileMetadata.class)
+        .isEqualTo(uploaded);
+  }
+
+  @Test
+  void testInternalApiIsHiddenOnPublicPort() {
+    webTestClient.get()
+        .uri("/api/v1/internal/cluster/nodes")
+        .header("X-Cluster-Secret", "test-secret")
+        .exchange()
+        .expectStatus().isNotFound();
+
+    clusterClient.get()
+        .uri("/api/v1/files")
+        .header("X-Cluster-Secret", "test-secret")
+        .exchange()
+        .expectStatus().isNotFound();
+  }
+
+  @Test
+  void testInternalApiRequiresSecret() {
+    clusterClient.get()
+        .uri("/api/v1/internal/cluster/nodes")
+        .exchange()
+        .expectStatus().isForbidden();
+
+    clusterClient.get()
+        .uri("/api/v1/internal/cluster/nodes")
+        .header("X-Cluster-Secret", "wrong-secret")
+        .exchange()
+        .expectStatus().isForbidden();
+
+    clusterClient.get()
+        .uri("/api/v1/internal/cluster/nodes")
+        .header("X-Cluster-Secret", "test-secret")
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.1").isEqualTo(NODE1_URL)
+        .jsonPath("$.2").isEqualTo(NODE2_URL);
+  }
+
+  @Test
+  void testJoinWithTakenNodeIdIsRejected() {
+    clusterClient.post()
+        .uri(uriBuilder -> uriBuilder.path("/api/v1/internal/cluster/nodes")
+            .queryParam("nodeId", 2)
+            .queryParam("url", "http://localhost:1")
+            .build())
+        .header("X-Cluster-Secret", "test-secret")
+        .exchange()
+        .expectStatus().isEqualTo(409);
+  }
+
+  @Test
+  void testRemovedNodeIsDroppedByAllMembers() {
+    WebTestClient node2ClusterClient = WebTestClient.bindToServer().baseUrl(NODE2_URL).build();
+    for (WebTestClient client : List.of(clusterClient, node2ClusterClient)) {
+      client.post()
+          .uri(uriBuilder -> uriBuilder.path("/api/v1/internal/cluster/nodes")
+              .queryParam("nodeId", 3)
+              .queryParam("url", "http://localhost:1")
+              .build())
+          .header("X-Cluster-Secret", "test-secret")
+          .exchange()
+          .expectStatus().isOk();
+    }
+
+    clusterClient.delete()
+        .uri("/api/v1/internal/cluster/nodes/3")
+        .header("X-Cluster-Secret", "test-secret")
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.3").doesNotExist();
+    // Usunięcie jest przekazywane pozostałym węzłom
+    await().atMost(Duration.ofSeconds(5))
+        .until(() -> !node2.getBean(ClusterService.class).nodes().containsKey(3));
+
+    clusterClient.delete()
+        .uri("/api/v1/internal/cluster/nodes/1")
+        .header("X-Cluster-Secret", "test-secret")
+        .exchange()
+        .expectStatus().isEqualTo(409);
+  }
+
+}